@@ -0,0 +1,123 @@
+package open.threading.util;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Mutual exclusion with a single wait condition, implemented either with the
+ * object monitor (synchronized/wait/notify) or with a ReentrantLock and Condition.
+ * Allows the same workload code to be run with either synchronization strategy.
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class Guard {
+
+    /**
+     * Block of code executed while holding the guard
+     */
+    @FunctionalInterface
+    public interface Block {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * @return a guard using synchronized/wait/notify on a private monitor
+     */
+    public static Guard monitor() {
+        return new MonitorGuard();
+    }
+
+    /**
+     * @return a guard using a ReentrantLock and Condition
+     */
+    public static Guard lock() {
+        return new LockGuard();
+    }
+
+    /**
+     * Run the block while holding the guard
+     */
+    public abstract void run(Block block) throws InterruptedException;
+
+    /**
+     * Wait until the condition holds, must be called from within run()
+     */
+    public abstract void awaitUntil(BooleanSupplier condition) throws InterruptedException;
+
+    /**
+     * Wake one waiting thread, must be called from within run()
+     */
+    public abstract void signal();
+
+    /**
+     * Wake all waiting threads, must be called from within run()
+     */
+    public abstract void signalAll();
+
+    /**
+     * Guard based on the object monitor
+     */
+    private static class MonitorGuard extends Guard {
+        private final Object monitor = new Object();
+
+        @Override
+        public void run(Block block) throws InterruptedException {
+            synchronized (monitor) {
+                block.run();
+            }
+        }
+
+        @Override
+        public void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+            while (!condition.getAsBoolean())
+                monitor.wait();
+        }
+
+        @Override
+        public void signal() {
+            monitor.notify();
+        }
+
+        @Override
+        public void signalAll() {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Guard based on java.util.concurrent locks
+     */
+    private static class LockGuard extends Guard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        @Override
+        public void run(Block block) throws InterruptedException {
+            lock.lock();
+            try {
+                block.run();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+            while (!condition.getAsBoolean())
+                changed.await();
+        }
+
+        @Override
+        public void signal() {
+            changed.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            changed.signalAll();
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package open.threading.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keyed rendezvous between producers and consumers: a consumer waits for the
+ * arrival of one specific key, and is only woken when a value for that key is
+ * handed off.  Each key has its own slot with its own lock and condition, so
+ * lookup is O(1) and producers never wake consumers waiting for other keys
+ * (unlike a single shared monitor signalled with notifyAll).
+ *
+ * Slots are created on demand and discarded again once they hold no values
+ * and have no waiters, so memory use is proportional to the number of keys
+ * currently in play.
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public class KeyedHandoff<K, V> {
+
+    /**
+     * Active slots, one per key that has pending values or waiting consumers
+     */
+    private final ConcurrentHashMap<K, Slot<V>> slots = new ConcurrentHashMap<>();
+    /**
+     * Total number of values handed off but not yet taken
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Hand off a value under the given key, waking at most one consumer waiting for that key
+     *
+     * @param key   the key consumers wait for
+     * @param value the value to hand off
+     */
+    public void put(K key, V value) {
+        while (true) {
+            Slot<V> slot = slots.computeIfAbsent(key, k -> new Slot<>());
+            slot.lock.lock();
+            try {
+                if (slot.discarded) continue; // Lost a race with removal, retry with a fresh slot
+                slot.values.add(value);
+                size.incrementAndGet();
+                if (slot.waiters > 0) slot.arrived.signal();
+                return;
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait until a value for the given key is available, then remove and return it
+     *
+     * @param key the key to wait for
+     * @return the oldest value handed off under the key
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public V take(K key) throws InterruptedException {
+        while (true) {
+            Slot<V> slot = slots.computeIfAbsent(key, k -> new Slot<>());
+            slot.lock.lock();
+            try {
+                if (slot.discarded) continue; // Lost a race with removal, retry with a fresh slot
+                slot.waiters++;
+                try {
+                    while (slot.values.isEmpty())
+                        slot.arrived.await();
+                } catch (InterruptedException e) {
+                    // Pass on a signal that may have been meant for us
+                    if (!slot.values.isEmpty()) slot.arrived.signal();
+                    throw e;
+                } finally {
+                    slot.waiters--;
+                    discardIfUnused(key, slot);
+                }
+                V value = slot.values.remove();
+                size.decrementAndGet();
+                discardIfUnused(key, slot);
+                return value;
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove and return a value for the given key without waiting
+     *
+     * @param key the key to look up
+     * @return the oldest value handed off under the key, or null if there is none
+     */
+    public V poll(K key) {
+        Slot<V> slot = slots.get(key);
+        if (slot == null) return null;
+        slot.lock.lock();
+        try {
+            if (slot.discarded || slot.values.isEmpty()) return null;
+            V value = slot.values.remove();
+            size.decrementAndGet();
+            discardIfUnused(key, slot);
+            return value;
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of values handed off but not yet taken
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Remove the slot from the map if nobody needs it anymore, must hold the slot lock
+     */
+    private void discardIfUnused(K key, Slot<V> slot) {
+        if (!slot.discarded && slot.waiters == 0 && slot.values.isEmpty()) {
+            slot.discarded = true;
+            slots.remove(key, slot);
+        }
+    }
+
+    /**
+     * Per-key state, always accessed while holding its lock
+     */
+    private static class Slot<V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition arrived = lock.newCondition();
+        private final Queue<V> values = new ArrayDeque<>();
+        private int waiters = 0; // Consumers currently waiting on this slot
+        private boolean discarded = false; // True once removed from the map
+    }
+
+}
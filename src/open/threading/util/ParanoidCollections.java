@@ -4,15 +4,39 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Wrapper for common java.util collection interfaces that causes them
  * to become "paranoid" with regards to threading, failing immediately
  * if any two methods are called concurrently by different threads.
  *
+ * Iterators and views (subList, keySet, entrySet, values, ...) obtained from a
+ * paranoid collection are paranoid as well, and share the check with the collection
+ * they came from, so e.g. iterating in one thread while modifying in another fails.
+ * Not covered: streams (stream() and parallelStream() run on the underlying collection,
+ * so a stream pipeline is only checked while the call creating it is in progress), and the
+ * Map.Entry objects seen when iterating an entrySet (entry.setValue is not checked).
+ * Blocking queues are out of scope: they are thread-safe by contract, so concurrent calls
+ * to their methods are never an error.
+ *
  * @author ups
  */
 @SuppressWarnings("WeakerAccess")
@@ -22,16 +46,21 @@ public class ParanoidCollections {
      */
     public static boolean LOGGING = false;
 
+    /**
+     * Interfaces of results that are wrapped, since they are views of the underlying collection
+     */
+    private static final Set<Class<?>> VIEW_TYPES = new HashSet<>(Arrays.asList(
+            Collection.class, List.class, Set.class, SortedSet.class, NavigableSet.class, Queue.class, Deque.class,
+            Map.class, SortedMap.class, NavigableMap.class, Iterator.class, ListIterator.class, Spliterator.class));
+
     /**
      * Return a wrapped list with the "paranoid" behavior
      *
      * @param list the list to wrap
      * @return a paranoid list using the argument list for all its operations
      */
-    @SuppressWarnings("unchecked")
     public static <T> List<T> paranoidList(List<T> list) {
-        InvocationHandler handler = new ParanoidInvocationHandler(list);
-        return (List<T>) Proxy.newProxyInstance(List.class.getClassLoader(), new Class[]{List.class}, handler);
+        return wrap(list, List.class, new AccessState());
     }
 
     /**
@@ -40,10 +69,8 @@ public class ParanoidCollections {
      * @param set the set to wrap
      * @return a paranoid set using the argument set for all its operations
      */
-    @SuppressWarnings("unchecked")
     public static <T> Set<T> paranoidList(Set<T> set) {
-        InvocationHandler handler = new ParanoidInvocationHandler(set);
-        return (Set<T>) Proxy.newProxyInstance(Set.class.getClassLoader(), new Class[]{Set.class}, handler);
+        return wrap(set, Set.class, new AccessState());
     }
 
     /**
@@ -52,47 +79,106 @@ public class ParanoidCollections {
      * @param map the map to wrap
      * @return a paranoid map using the argument map for all its operations
      */
-    @SuppressWarnings("unchecked")
     public static <S, T> Map<S, T> paranoidList(Map<S, T> map) {
-        InvocationHandler handler = new ParanoidInvocationHandler(map);
-        return (Map<S, T>) Proxy.newProxyInstance(Map.class.getClassLoader(), new Class[]{Map.class}, handler);
+        return wrap(map, Map.class, new AccessState());
     }
 
     /**
-     * Invocation handler (a proxy to the underlying collection)
+     * Return a wrapped queue with the "paranoid" behavior
+     *
+     * @param queue the queue to wrap
+     * @return a paranoid queue using the argument queue for all its operations
+     */
+    public static <T> Queue<T> paranoidQueue(Queue<T> queue) {
+        return wrap(queue, Queue.class, new AccessState());
+    }
+
+    /**
+     * Return a wrapped deque with the "paranoid" behavior
+     *
+     * @param deque the deque to wrap
+     * @return a paranoid deque using the argument deque for all its operations
+     */
+    public static <T> Deque<T> paranoidDeque(Deque<T> deque) {
+        return wrap(deque, Deque.class, new AccessState());
+    }
+
+    /**
+     * Wrap a collection, view or iterator with the given interface, sharing the given access state
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T wrap(Object target, Class<?> type, AccessState state) {
+        if (type == Iterator.class) return (T) new ParanoidIterator<>((Iterator<Object>) target, state);
+        if (type == ListIterator.class) return (T) new ParanoidListIterator<>((ListIterator<Object>) target, state);
+        InvocationHandler handler = new ParanoidInvocationHandler(target, state);
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler);
+    }
+
+    /**
+     * Detector for concurrent access, shared by a collection and all views and iterators obtained from it.
+     * Lock-free: the active thread is claimed with a compare-and-set, and only the active thread
+     * touches the reentrant level.
+     */
+    private static class AccessState {
+        private final AtomicReference<Thread> activeThread = new AtomicReference<>(); // Null means no active calls
+        private int reentrantLevel = 0; // Allow reentrant calls, only accessed by the active thread
+
+        void enter(String name) {
+            Thread current = Thread.currentThread();
+            if (activeThread.get() != current && !activeThread.compareAndSet(null, current))
+                throw new ConcurrentAccessException(name);
+            reentrantLevel++;
+            if (LOGGING)
+                System.out.println("sync " + name + " @ " + current.getName() + " : " + reentrantLevel);
+        }
+
+        void exit(String name) {
+            int level = --reentrantLevel;
+            if (level == 0) activeThread.lazySet(null); // Release store: callers synchronizing correctly see it via their own lock
+            if (LOGGING)
+                System.out.println("unsync " + name + " @ " + Thread.currentThread().getName() + " : " + level);
+        }
+    }
+
+    /**
+     * Invocation handler (a proxy to the underlying collection or view)
      *
      * @author ups
      */
     private static class ParanoidInvocationHandler implements InvocationHandler {
-        private final Object lock = new Object(); // Used for synchronization
-        private Object target; // Underlying collection
-        private Thread activeThread = null; // Null means no active calls
-        private int reentrantLevel = 0; // Allow reentrant calls
+        private static final Map<Method, Boolean> VIEWS = new ConcurrentHashMap<>(); // Cache of which methods return views
+        private final Object target; // Underlying collection
+        private final AccessState state; // Shared with views
 
-        public ParanoidInvocationHandler(Object _target) {
+        public ParanoidInvocationHandler(Object _target, AccessState _state) {
             target = _target;
+            state = _state;
+        }
+
+        /**
+         * @return true if the method returns a view, which must be wrapped as well
+         */
+        private static boolean returnsView(Method method) {
+            Boolean view = VIEWS.get(method);
+            if (view == null) {
+                view = VIEW_TYPES.contains(method.getReturnType());
+                VIEWS.put(method, view);
+            }
+            return view;
         }
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             try {
-                synchronized (lock) {
-                    if (activeThread != null && Thread.currentThread() != activeThread)
-                        throw new ConcurrentAccessException(method.getName());
-                    activeThread = Thread.currentThread();
-                    reentrantLevel++;
-                    if (LOGGING)
-                        System.out.println("sync " + method.getName() + " @ " + activeThread.getName() + " : " + reentrantLevel);
-                }
+                Object result;
+                state.enter(method.getName());
                 try {
-                    return method.invoke(target, args);
+                    result = method.invoke(target, args);
                 } finally {
-                    synchronized (lock) {
-                        if (--reentrantLevel == 0) activeThread = null;
-                    }
-                    if (LOGGING)
-                        System.out.println("unsync " + method.getName() + " @ " + (activeThread == null ? "NULL" : (activeThread.getName() + " : " + reentrantLevel)));
+                    state.exit(method.getName());
                 }
+                if (result != null && returnsView(method)) return wrap(result, method.getReturnType(), state);
+                return result;
             } catch (InvocationTargetException exn) {
                 if (exn.getCause() != null) throw exn.getCause();
                 throw new Error("Internal error: Unexpected exception chaining");
@@ -101,4 +187,130 @@ public class ParanoidCollections {
 
     }
 
+    /**
+     * Iterator sharing the access state of its collection, written out rather than proxied
+     * since its methods are called once per element
+     */
+    private static class ParanoidIterator<T> implements Iterator<T> {
+        final Iterator<T> target; // Underlying iterator
+        final AccessState state; // Shared with the collection
+
+        ParanoidIterator(Iterator<T> _target, AccessState _state) {
+            target = _target;
+            state = _state;
+        }
+
+        @Override
+        public boolean hasNext() {
+            state.enter("hasNext");
+            try {
+                return target.hasNext();
+            } finally {
+                state.exit("hasNext");
+            }
+        }
+
+        @Override
+        public T next() {
+            state.enter("next");
+            try {
+                return target.next();
+            } finally {
+                state.exit("next");
+            }
+        }
+
+        @Override
+        public void remove() {
+            state.enter("remove");
+            try {
+                target.remove();
+            } finally {
+                state.exit("remove");
+            }
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            state.enter("forEachRemaining");
+            try {
+                target.forEachRemaining(action);
+            } finally {
+                state.exit("forEachRemaining");
+            }
+        }
+    }
+
+    /**
+     * List iterator sharing the access state of its list
+     */
+    private static class ParanoidListIterator<T> extends ParanoidIterator<T> implements ListIterator<T> {
+        private final ListIterator<T> listTarget;
+
+        ParanoidListIterator(ListIterator<T> _target, AccessState _state) {
+            super(_target, _state);
+            listTarget = _target;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            state.enter("hasPrevious");
+            try {
+                return listTarget.hasPrevious();
+            } finally {
+                state.exit("hasPrevious");
+            }
+        }
+
+        @Override
+        public T previous() {
+            state.enter("previous");
+            try {
+                return listTarget.previous();
+            } finally {
+                state.exit("previous");
+            }
+        }
+
+        @Override
+        public int nextIndex() {
+            state.enter("nextIndex");
+            try {
+                return listTarget.nextIndex();
+            } finally {
+                state.exit("nextIndex");
+            }
+        }
+
+        @Override
+        public int previousIndex() {
+            state.enter("previousIndex");
+            try {
+                return listTarget.previousIndex();
+            } finally {
+                state.exit("previousIndex");
+            }
+        }
+
+        @Override
+        public void set(T t) {
+            state.enter("set");
+            try {
+                listTarget.set(t);
+            } finally {
+                state.exit("set");
+            }
+        }
+
+        @Override
+        public void add(T t) {
+            state.enter("add");
+            try {
+                listTarget.add(t);
+            } finally {
+                state.exit("add");
+            }
+        }
+    }
+
 }
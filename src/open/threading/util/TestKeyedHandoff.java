@@ -0,0 +1,80 @@
+package open.threading.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Various testcases for the keyed handoff
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public class TestKeyedHandoff {
+
+    public static void testInOrder() throws InterruptedException {
+        System.out.println("***In order:");
+        KeyedHandoff<Integer, String> handoff = new KeyedHandoff<>();
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5; i++) System.out.println(handoff.take(i));
+            } catch (InterruptedException e) {
+                throw new Error("Unexpected interruption");
+            }
+        });
+        consumer.start();
+        for (int i = 4; i >= 0; i--) handoff.put(i, "value " + i); // Reverse order: consumer must wait for key 0
+        consumer.join();
+        System.out.println("Remaining: " + handoff.size());
+    }
+
+    public static void testManyConsumers(int n_consumers) throws InterruptedException {
+        System.out.println("***Many consumers:");
+        KeyedHandoff<Integer, Integer> handoff = new KeyedHandoff<>();
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < n_consumers; i++) {
+            int key = i;
+            Thread t = new Thread(() -> {
+                try {
+                    if (handoff.take(key) != key) mismatches.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw new Error("Unexpected interruption");
+                }
+            });
+            consumers.add(t);
+            t.start();
+        }
+        long start = System.nanoTime();
+        for (int i = n_consumers - 1; i >= 0; i--) handoff.put(i, i);
+        for (Thread t : consumers) t.join();
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(n_consumers + " consumers served in " + millis + "ms, mismatches: " + mismatches.get() + ", remaining: " + handoff.size());
+    }
+
+    public static void testInterrupt() throws InterruptedException {
+        System.out.println("***Interrupt:");
+        KeyedHandoff<String, String> handoff = new KeyedHandoff<>();
+        Thread t = new Thread(() -> {
+            try {
+                handoff.take("never");
+                System.out.println("BAD: take returned");
+            } catch (InterruptedException e) {
+                System.out.println("OK: interrupted");
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        t.interrupt();
+        t.join();
+        handoff.put("never", "late");
+        System.out.println("Poll after interrupt: " + handoff.poll("never") + ", remaining: " + handoff.size());
+    }
+
+    public static void main(String argv[]) throws InterruptedException {
+        testInOrder();
+        testManyConsumers(1000);
+        testInterrupt();
+    }
+
+}
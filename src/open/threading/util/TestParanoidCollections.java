@@ -1,7 +1,12 @@
 package open.threading.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Various testcases for paranoid collections
@@ -32,10 +37,98 @@ public class TestParanoidCollections {
 
     }
 
+    public static void testIteratorBAD() {
+        System.out.println("***Iterator BAD:");
+        List<Integer> ls = ParanoidCollections.paranoidList(new ArrayList<>());
+        for (int i = 0; i < 10; i++) ls.add(i);
+        // Hold the iterator "active" from another thread by iterating inside a callback
+        Iterator<Integer> it = ls.iterator();
+        it.forEachRemaining(x -> {
+            if (x == 5) runInOtherThread(() -> ls.add(-1));
+        });
+    }
+
+    public static void testViewsBAD() {
+        System.out.println("***Views BAD:");
+        Map<String, Integer> map = ParanoidCollections.paranoidList(new HashMap<>());
+        map.put("a", 1);
+        map.put("b", 2);
+        for (String key : map.keySet())
+            runInOtherThread(() -> map.entrySet().iterator().hasNext()); // Fine: not concurrent with anything
+        map.values().forEach(v -> runInOtherThread(() -> map.keySet().size())); // Concurrent with forEach
+        List<Integer> ls = ParanoidCollections.paranoidList(new ArrayList<>());
+        for (int i = 0; i < 10; i++) ls.add(i);
+        ls.subList(2, 8).forEach(x -> {
+            if (x == 5) runInOtherThread(() -> ls.get(0)); // Concurrent with forEach on the view
+        });
+    }
+
+    public static void testQueues() {
+        System.out.println("***Queues (Deque BAD):");
+        Deque<Integer> deque = ParanoidCollections.paranoidDeque(new ArrayDeque<>());
+        for (int i = 0; i < 10; i++) deque.addLast(i);
+        deque.descendingIterator().forEachRemaining(x -> {
+            if (x == 5) runInOtherThread(deque::pollFirst);
+        });
+    }
+
+    public static void testIterationOverhead(int size, int rounds) {
+        System.out.println("***Iteration overhead:");
+        List<Integer> plain = new ArrayList<>();
+        for (int i = 0; i < size; i++) plain.add(i);
+        List<Integer> paranoid = ParanoidCollections.paranoidList(plain);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            traverse(plain, rounds);
+            traverse(paranoid, rounds);
+        }
+        double plainNanos = traverse(plain, rounds);
+        double paranoidNanos = traverse(paranoid, rounds);
+        System.out.println(String.format("Plain: %.2f ns/element, paranoid: %.2f ns/element, overhead: %.2f ns/element",
+                plainNanos, paranoidNanos, paranoidNanos - plainNanos));
+    }
+
+    /**
+     * @return the time taken per element by for-each traversal of the list
+     */
+    private static double traverse(List<Integer> ls, int rounds) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            for (int x : ls) sum += x;
+        long nanos = System.nanoTime() - start;
+        if (sum == 42) System.out.println(); // Keep the traversal from being optimized away
+        return (double) nanos / rounds / ls.size();
+    }
+
+    /**
+     * Run the task in another thread and wait for it, reporting any concurrent access
+     */
+    private static void runInOtherThread(Runnable task) {
+        Thread t = new Thread(() -> {
+            try {
+                task.run();
+                System.out.println("OK: no concurrent access");
+            } catch (ConcurrentAccessException exn) {
+                System.out.println("Detected: " + exn.getMessage());
+            }
+        });
+        t.start();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            throw new Error("Fatal interruption");
+        }
+    }
+
     public static void main(String argv[]) {
         ParanoidCollections.LOGGING = true;
         testReentrantOK();
         testReentrantBAD();
+        ParanoidCollections.LOGGING = false;
+        testIteratorBAD();
+        testViewsBAD();
+        testQueues();
+        testIterationOverhead(100000, 100);
     }
 
     @SuppressWarnings("serial")
@@ -0,0 +1,78 @@
+package open.threading.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The kind of threads used to run a workload: ordinary platform threads, or
+ * lightweight virtual threads (only available when running on a JVM that
+ * supports them, looked up reflectively so the code still compiles for older targets).
+ *
+ * Virtual threads blocking inside a synchronized block pin their carrier thread,
+ * so each mode also supplies the kind of guard that is appropriate for it.
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public enum ThreadMode {
+    PLATFORM, VIRTUAL;
+
+    /**
+     * Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), null if not supported by the JVM.
+     * Probed by creating one thread, since on JDK 19/20 the methods exist but throw unless preview
+     * features are enabled.
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null, unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            unstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {
+            });
+        } catch (ReflectiveOperationException | RuntimeException exn) {
+            // Virtual threads not available (or not enabled) on this JVM
+            ofVirtual = null;
+            unstarted = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    /**
+     * @return true if threads of this kind can be created on the running JVM
+     */
+    public boolean isSupported() {
+        return this == PLATFORM || (OF_VIRTUAL != null && UNSTARTED != null);
+    }
+
+    /**
+     * Create a new, unstarted thread of this kind
+     *
+     * @param task the task the thread should run
+     * @return the new thread
+     */
+    public Thread newThread(Runnable task) {
+        if (this == PLATFORM) return new Thread(task);
+        if (!isSupported())
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + ")");
+        try {
+            return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), task);
+        } catch (IllegalAccessException | InvocationTargetException exn) {
+            throw new Error("Internal error: could not create virtual thread", exn);
+        }
+    }
+
+    /**
+     * Create a guard suitable for this kind of thread: a plain monitor for platform threads,
+     * a ReentrantLock for virtual threads (which would otherwise pin their carrier)
+     *
+     * @return a new guard
+     */
+    public Guard newGuard() {
+        return this == PLATFORM ? Guard.monitor() : Guard.lock();
+    }
+
+}
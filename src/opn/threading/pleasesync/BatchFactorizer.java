@@ -0,0 +1,214 @@
+package opn.threading.pleasesync;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Factorization of many numbers at once using product and remainder trees (Bernstein-style
+ * batch trial division and batch GCD), so that the work of finding small factors and factors
+ * shared between numbers is done once for the whole batch rather than once per number:
+ * (1) the product of all small primes is reduced modulo every number through a remainder tree,
+ * and the gcd of each remainder with its number yields the small primes dividing that number,
+ * (2) the cofactors left are checked against the product of all the other cofactors, splitting
+ * those that share a factor with another number in the batch,
+ * (3) the remaining pieces that are not prime are handed to the per-number trial division,
+ * starting above the small primes since those have already been divided out.
+ *
+ * @author ups
+ */
+class BatchFactorizer {
+
+    /**
+     * Primes below this limit are found by batch trial division
+     */
+    private static final int SMALL_LIMIT = 1 << 16;
+    private static final BigInteger SMALL_LIMIT_BIG = BigInteger.valueOf(SMALL_LIMIT);
+    private static final BigInteger SMALL_LIMIT_SQUARED = SMALL_LIMIT_BIG.multiply(SMALL_LIMIT_BIG);
+    /**
+     * Leftover pieces are taken to be prime if they pass this primality test (error probability below 2^-100)
+     */
+    private static final int PRIME_CERTAINTY = 100;
+    /**
+     * Product tree of all primes below SMALL_LIMIT, the root (last level) is their product
+     */
+    private static final BigInteger[][] SMALL_PRIME_TREE = productTree(smallPrimes());
+
+    /**
+     * Compute the factorizations of a collection of numbers at once.
+     * For the compute-time metrics, each number is charged an equal share of the batch phases
+     * plus the trial division of the pieces it was the first to need.
+     *
+     * @param numbers the numbers to factorize
+     * @return the factorization of each distinct number, in iteration order of the argument
+     * @throws CancellationException if the calling thread is interrupted before the computation completes
+     */
+    static Map<BigInteger, List<BigInteger>> primeFactors(Collection<BigInteger> numbers) {
+        Map<BigInteger, List<BigInteger>> results = new LinkedHashMap<>();
+        List<BigInteger> todo = new ArrayList<>();
+        for (BigInteger number : new LinkedHashSet<>(numbers)) {
+            if (number.compareTo(BigInteger.ONE) <= 0) {
+                results.put(number, Factorizer.primeFactors(number)); // Trivial, does its own cache lookup
+                continue;
+            }
+            List<BigInteger> cached = Factorizer.lookup(number);
+            if (cached != null) results.put(number, cached);
+            else {
+                results.put(number, null); // Keep the iteration order, filled in below
+                todo.add(number);
+            }
+        }
+        if (todo.isEmpty()) return results;
+
+        long batchStart = System.nanoTime();
+
+        // (1) Batch trial division by all small primes
+        BigInteger[] leaves = todo.toArray(new BigInteger[0]);
+        BigInteger[] remainders = remainderTree(SMALL_PRIME_TREE[SMALL_PRIME_TREE.length - 1][0], productTree(leaves), false);
+        List<List<BigInteger>> factors = new ArrayList<>();
+        BigInteger[] cofactors = new BigInteger[leaves.length];
+        for (int i = 0; i < leaves.length; i++) {
+            checkInterrupted();
+            List<BigInteger> found = new ArrayList<>();
+            BigInteger g = remainders[i].gcd(leaves[i]);
+            if (!g.equals(BigInteger.ONE)) splitSmall(g, SMALL_PRIME_TREE.length - 1, 0, found);
+            BigInteger n = leaves[i];
+            List<BigInteger> withMultiplicity = new ArrayList<>();
+            for (BigInteger p : found) {
+                BigInteger[] qr = n.divideAndRemainder(p);
+                while (qr[1].signum() == 0) {
+                    withMultiplicity.add(p);
+                    n = qr[0];
+                    qr = n.divideAndRemainder(p);
+                }
+            }
+            factors.add(withMultiplicity);
+            cofactors[i] = n;
+        }
+
+        // (2) Batch GCD of the cofactors against each other
+        List<BigInteger> large = new ArrayList<>();
+        for (BigInteger c : cofactors) if (c.compareTo(SMALL_LIMIT_SQUARED) >= 0) large.add(c);
+        Map<BigInteger, BigInteger> shared = new HashMap<>();
+        if (large.size() > 1) {
+            checkInterrupted();
+            BigInteger[] largeLeaves = large.toArray(new BigInteger[0]);
+            BigInteger[][] tree = productTree(largeLeaves);
+            BigInteger[] squareRemainders = remainderTree(tree[tree.length - 1][0], tree, true);
+            for (int i = 0; i < largeLeaves.length; i++) {
+                BigInteger g = squareRemainders[i].divide(largeLeaves[i]).gcd(largeLeaves[i]);
+                if (!g.equals(BigInteger.ONE) && !g.equals(largeLeaves[i])) shared.put(largeLeaves[i], g);
+            }
+        }
+
+        // (3) Per-number trial division of the remaining pieces, each distinct piece only once
+        long sharedNanos = (System.nanoTime() - batchStart) / leaves.length;
+        Map<BigInteger, List<BigInteger>> pieces = new HashMap<>();
+        for (int i = 0; i < leaves.length; i++) {
+            long numberStart = System.nanoTime();
+            BigInteger c = cofactors[i];
+            List<BigInteger> pieceList = new ArrayList<>();
+            BigInteger g = shared.get(c);
+            if (g != null) {
+                pieceList.add(g);
+                pieceList.add(c.divide(g));
+            } else if (!c.equals(BigInteger.ONE)) {
+                pieceList.add(c);
+            }
+            for (BigInteger piece : pieceList)
+                factors.get(i).addAll(pieces.computeIfAbsent(piece, BatchFactorizer::factorPiece));
+            FactorizerMetrics.get().recordCompute(leaves[i].bitLength(), sharedNanos + System.nanoTime() - numberStart);
+            results.put(leaves[i], Factorizer.store(leaves[i], factors.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Factorize a number known to have no prime factors below SMALL_LIMIT, only falling back to
+     * trial division when it is composite (most leftover pieces are prime, and trial division of
+     * a prime p costs sqrt(p) divisions)
+     */
+    private static List<BigInteger> factorPiece(BigInteger piece) {
+        List<BigInteger> factors = new ArrayList<>();
+        if (piece.compareTo(SMALL_LIMIT_SQUARED) < 0 || piece.isProbablePrime(PRIME_CERTAINTY)) factors.add(piece);
+        else Factorizer.trialDivision(piece, SMALL_LIMIT_BIG, factors);
+        return factors;
+    }
+
+    /**
+     * Find the small primes dividing g (a product of distinct small primes) by descending
+     * only into the subtrees of the small prime product tree that share a factor with g
+     */
+    private static void splitSmall(BigInteger g, int level, int index, List<BigInteger> found) {
+        if (level == 0) {
+            found.add(SMALL_PRIME_TREE[0][index]);
+            return;
+        }
+        BigInteger[] children = SMALL_PRIME_TREE[level - 1];
+        for (int child = 2 * index; child <= 2 * index + 1 && child < children.length; child++) {
+            BigInteger common = g.gcd(children[child]);
+            if (!common.equals(BigInteger.ONE)) splitSmall(common, level - 1, child, found);
+        }
+    }
+
+    /**
+     * Build a product tree: level 0 holds the leaves, each following level the products of
+     * pairs from the level below, the last level holds the product of all leaves
+     */
+    private static BigInteger[][] productTree(BigInteger[] leaves) {
+        List<BigInteger[]> levels = new ArrayList<>();
+        levels.add(leaves);
+        BigInteger[] level = leaves;
+        while (level.length > 1) {
+            BigInteger[] next = new BigInteger[(level.length + 1) / 2];
+            for (int i = 0; i < next.length; i++)
+                next[i] = 2 * i + 1 < level.length ? level[2 * i].multiply(level[2 * i + 1]) : level[2 * i];
+            levels.add(next);
+            level = next;
+        }
+        return levels.toArray(new BigInteger[0][]);
+    }
+
+    /**
+     * Reduce x modulo every leaf of the product tree (or modulo the square of every leaf),
+     * reducing modulo each node on the way down so the operands shrink at every level
+     */
+    private static BigInteger[] remainderTree(BigInteger x, BigInteger[][] tree, boolean squared) {
+        BigInteger root = tree[tree.length - 1][0];
+        BigInteger[] remainders = {x.mod(squared ? root.multiply(root) : root)};
+        for (int level = tree.length - 2; level >= 0; level--) {
+            checkInterrupted();
+            BigInteger[] nodes = tree[level];
+            BigInteger[] next = new BigInteger[nodes.length];
+            for (int i = 0; i < nodes.length; i++)
+                next[i] = remainders[i / 2].mod(squared ? nodes[i].multiply(nodes[i]) : nodes[i]);
+            remainders = next;
+        }
+        return remainders;
+    }
+
+    /**
+     * @return all primes below SMALL_LIMIT as BigIntegers
+     */
+    private static BigInteger[] smallPrimes() {
+        long[] primes = Factorizer.smallPrimes(SMALL_LIMIT);
+        BigInteger[] result = new BigInteger[primes.length];
+        for (int i = 0; i < primes.length; i++) result[i] = BigInteger.valueOf(primes[i]);
+        return result;
+    }
+
+    /**
+     * Cooperative cancellation between the phases of the batch
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Batch factorization interrupted");
+    }
+
+}
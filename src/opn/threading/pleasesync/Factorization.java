@@ -0,0 +1,168 @@
+package opn.threading.pleasesync;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, immutable representation of a prime factorization, used for caching.
+ * Factors are stored as (prime, exponent) pairs in increasing order of the prime: packed
+ * into a long[] when every prime fits in a long, and otherwise encoded as varints in a byte[]
+ * (magnitude length, magnitude bytes, exponent for each pair).  The factors are exposed to
+ * existing callers as a lazy list view that repeats each prime according to its exponent.
+ *
+ * @author ups
+ */
+final class Factorization {
+
+    private static final Factorization EMPTY = new Factorization(new long[0], null, 0);
+
+    /**
+     * Alternating prime and exponent, null if the factorization is varint encoded
+     */
+    private final long[] packed;
+    /**
+     * Varint encoded pairs, null if the factorization is packed
+     */
+    private final byte[] encoded;
+    /**
+     * Total number of factors, counting multiplicity
+     */
+    private final int size;
+
+    private Factorization(long[] packed, byte[] encoded, int size) {
+        this.packed = packed;
+        this.encoded = encoded;
+        this.size = size;
+    }
+
+    /**
+     * Build the compact representation of a list of prime factors
+     *
+     * @param factors the prime factors, repeated according to multiplicity, in any order
+     * @return the compact factorization
+     */
+    static Factorization of(List<BigInteger> factors) {
+        if (factors.isEmpty()) return EMPTY;
+        BigInteger[] sorted = factors.toArray(new BigInteger[0]);
+        Arrays.sort(sorted);
+        List<BigInteger> primes = new ArrayList<>();
+        List<Integer> exponents = new ArrayList<>();
+        boolean fitsInLong = true;
+        for (BigInteger factor : sorted) {
+            int last = primes.size() - 1;
+            if (last >= 0 && primes.get(last).equals(factor)) {
+                exponents.set(last, exponents.get(last) + 1);
+            } else {
+                primes.add(factor);
+                exponents.add(1);
+                fitsInLong &= factor.bitLength() < Long.SIZE;
+            }
+        }
+        if (fitsInLong) {
+            long[] packed = new long[2 * primes.size()];
+            for (int i = 0; i < primes.size(); i++) {
+                packed[2 * i] = primes.get(i).longValue();
+                packed[2 * i + 1] = exponents.get(i);
+            }
+            return new Factorization(packed, null, sorted.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < primes.size(); i++) {
+            byte[] magnitude = primes.get(i).toByteArray();
+            writeVarint(out, magnitude.length);
+            out.write(magnitude, 0, magnitude.length);
+            writeVarint(out, exponents.get(i));
+        }
+        return new Factorization(null, out.toByteArray(), sorted.length);
+    }
+
+    /**
+     * @return the factors as an unmodifiable list, decoded on access
+     */
+    List<BigInteger> asList() {
+        return new AbstractList<BigInteger>() {
+            @Override
+            public BigInteger get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                return factorAt(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the total number of factors, counting multiplicity
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the prime at the given position in the factor list, by walking the pairs
+     */
+    private BigInteger factorAt(int index) {
+        if (packed != null) {
+            for (int i = 0; ; i += 2) {
+                if (index < packed[i + 1]) return BigInteger.valueOf(packed[i]);
+                index -= packed[i + 1];
+            }
+        }
+        int[] position = {0};
+        while (true) {
+            int length = readVarint(encoded, position);
+            int start = position[0];
+            position[0] += length;
+            int exponent = readVarint(encoded, position);
+            if (index < exponent) return new BigInteger(Arrays.copyOfRange(encoded, start, start + length));
+            index -= exponent;
+        }
+    }
+
+    /**
+     * Write a non-negative int as an unsigned LEB128 varint
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint, advancing the position
+     */
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Factorization)) return false;
+        Factorization that = (Factorization) other;
+        return Arrays.equals(packed, that.packed) && Arrays.equals(encoded, that.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(packed) + Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public String toString() {
+        return asList().toString();
+    }
+}
@@ -0,0 +1,41 @@
+package opn.threading.pleasesync;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Receiver of the results produced by MainController: the GUI, or a headless consumer such as the load generator.
+ * Each receiver is a separate session, so a new request only supersedes earlier requests from the same receiver.
+ * Results are tagged with the generation returned by MainController.factorize for the request they belong to,
+ * so a receiver can tell results of its current request from late results of a superseded one.
+ *
+ * @author ups
+ */
+interface FactorizationSink {
+
+    /**
+     * Called once for every completed factorization
+     *
+     * @param generation the generation of the request
+     * @param number     the number that was being factorized
+     * @param result     the factorization result
+     */
+    void displayFactorization(long generation, BigInteger number, List<BigInteger> result);
+
+    /**
+     * Called once when all factorizations of a request have completed
+     *
+     * @param generation    the generation of the request
+     * @param millis        the number of milliseconds consumed by the operation
+     * @param n_new_factors the number of new factors discovered in the operation
+     */
+    void displayStatistics(long generation, long millis, int n_new_factors);
+
+    /**
+     * Called instead of the other methods when a request cannot be processed
+     *
+     * @param message description of the problem
+     */
+    void displayError(String message);
+
+}
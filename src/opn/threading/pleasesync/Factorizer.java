@@ -2,9 +2,11 @@ package opn.threading.pleasesync;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 /**
  * Utility class for factorizing numbers represented as BigInteger.
@@ -16,19 +18,68 @@ import java.util.Map;
 class Factorizer {
 
     /**
-     * Cache for storing previously computed results
+     * Primes used for cheaply probing numbers for small factors when estimating their cost
      */
-    private static Map<BigInteger, List<BigInteger>> cache = new HashMap<>();
+    private static final int PROBE_LIMIT = 1000;
+    private static final long[] PROBE_PRIMES = smallPrimes(PROBE_LIMIT);
+    /**
+     * Cache for storing previously computed results in compact form, always accessed within code that synchronizes on the cache
+     */
+    private static Map<BigInteger, Factorization> cache = new HashMap<>();
+    /**
+     * Instrumentation of cache use, lock waiting and compute time
+     */
+    private static final FactorizerMetrics metrics = FactorizerMetrics.get();
+
+    static {
+        metrics.setCacheSize(() -> {
+            synchronized (cache) {
+                return cache.size();
+            }
+        });
+    }
 
     /**
-     * Compute the factorization of the given number
+     * Compute the factorization of the given number.
+     * Only cache access is synchronized, so several numbers can be factorized in parallel.
+     *
+     * @throws CancellationException if the calling thread is interrupted before the computation completes
      */
     @SuppressWarnings("WeakerAccess")
-    public static synchronized List<BigInteger> primeFactors(BigInteger number) {
-        if (cache.containsKey(number)) return cache.get(number);
-        BigInteger n = number;
+    public static List<BigInteger> primeFactors(BigInteger number) {
+        List<BigInteger> cached = lookup(number);
+        if (cached != null) return cached;
+        long start = System.nanoTime();
         List<BigInteger> factors = new ArrayList<>();
-        for (BigInteger i = BigInteger.valueOf(2); i.compareTo(n.divide(i)) <= 0; i = i.add(BigInteger.ONE)) {
+        trialDivision(number, BigInteger.valueOf(2), factors);
+        metrics.recordCompute(number.bitLength(), System.nanoTime() - start);
+        return store(number, factors);
+    }
+
+    /**
+     * Compute the factorizations of a collection of numbers at once, sharing the work of finding
+     * small factors and factors common to several of the numbers (see BatchFactorizer)
+     *
+     * @param numbers the numbers to factorize
+     * @return the factorization of each distinct number
+     * @throws CancellationException if the calling thread is interrupted before the computation completes
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static Map<BigInteger, List<BigInteger>> primeFactors(Collection<BigInteger> numbers) {
+        return BatchFactorizer.primeFactors(numbers);
+    }
+
+    /**
+     * Divide out all factors of n, trying every divisor starting from the given one, which must be
+     * no larger than the smallest prime factor of n.  Adds the prime factors found to the list.
+     *
+     * @throws CancellationException if the calling thread is interrupted before the computation completes
+     */
+    static void trialDivision(BigInteger n, BigInteger from, List<BigInteger> factors) {
+        BigInteger number = n;
+        for (BigInteger i = from; i.compareTo(n.divide(i)) <= 0; i = i.add(BigInteger.ONE)) {
+            if (Thread.currentThread().isInterrupted()) // Cooperative cancellation, nothing is cached
+                throw new CancellationException("Factorization of " + number + " interrupted");
             while ((n.mod(i)).compareTo(BigInteger.ZERO) == 0) {
                 factors.add(i);
                 n = n.divide(i);
@@ -37,7 +88,84 @@ class Factorizer {
         if (n.compareTo(BigInteger.ONE) > 0) {
             factors.add(n);
         }
-        cache.put(number, factors);
-        return factors;
+    }
+
+    /**
+     * @return the cached factorization of the number, or null if not yet computed
+     */
+    static List<BigInteger> lookup(BigInteger number) {
+        Factorization cached;
+        long start = System.nanoTime();
+        synchronized (cache) {
+            metrics.recordLockWait(System.nanoTime() - start);
+            cached = cache.get(number);
+        }
+        if (cached == null) {
+            metrics.recordCacheMiss();
+            return null;
+        }
+        metrics.recordCacheHit();
+        return cached.asList();
+    }
+
+    /**
+     * Cache the factorization of the number
+     *
+     * @return the cached factorization
+     */
+    static List<BigInteger> store(BigInteger number, List<BigInteger> factors) {
+        Factorization result = Factorization.of(factors);
+        long start = System.nanoTime();
+        synchronized (cache) {
+            metrics.recordLockWait(System.nanoTime() - start);
+            cache.put(number, result);
+        }
+        return result.asList();
+    }
+
+    /**
+     * Cheaply estimate the cost of factorizing the given number with primeFactors, as the base-2
+     * logarithm of the number of trial divisions it will perform.  Small factors are divided out
+     * first; a prime cofactor m then costs about sqrt(m) divisions, a composite cofactor somewhere
+     * between PROBE_LIMIT and sqrt(m), estimated as the cube root of m.
+     *
+     * @param number the number to estimate for
+     * @return estimated log2 of the number of trial divisions, 0 for cached or trivial numbers
+     */
+    static double estimateCost(BigInteger number) {
+        long start = System.nanoTime();
+        synchronized (cache) {
+            metrics.recordLockWait(System.nanoTime() - start);
+            if (cache.containsKey(number)) return 0;
+        }
+        if (number.compareTo(BigInteger.ONE) <= 0) return 0;
+        BigInteger m = number;
+        long largest_small_factor = 1;
+        for (long p : PROBE_PRIMES) {
+            BigInteger prime = BigInteger.valueOf(p);
+            while (m.mod(prime).signum() == 0) {
+                m = m.divide(prime);
+                largest_small_factor = p;
+            }
+        }
+        if (m.equals(BigInteger.ONE)) return Math.log(largest_small_factor) / Math.log(2) / 2;
+        double bits = m.bitLength();
+        return m.isProbablePrime(20) ? bits / 2 : bits / 3;
+    }
+
+    /**
+     * Sieve of Eratosthenes
+     *
+     * @return all primes below the limit, in increasing order
+     */
+    static long[] smallPrimes(int limit) {
+        boolean[] composite = new boolean[limit];
+        List<Long> primes = new ArrayList<>();
+        for (int i = 2; i < limit; i++) {
+            if (composite[i]) continue;
+            primes.add((long) i);
+            for (long j = (long) i * i; j < limit; j += i) composite[(int) j] = true;
+        }
+        return primes.stream().mapToLong(Long::longValue).toArray();
     }
 }
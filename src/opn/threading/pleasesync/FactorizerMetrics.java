@@ -0,0 +1,242 @@
+package opn.threading.pleasesync;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+/**
+ * Instrumentation of the factorization hot paths in Factorizer and MainController, exposed as the
+ * JMX MBean "opn.threading.pleasesync:type=FactorizerMetrics" and optionally dumped as text
+ * every N seconds by setting the system property factorizer.metrics.dumpSeconds.
+ *
+ * Recording only touches preallocated atomic counters and arrays, so it does not allocate and
+ * can stay enabled.  Compute times are kept in histograms with power-of-two nanosecond buckets,
+ * one histogram per input bit-length class of BIT_CLASS_WIDTH bits.
+ *
+ * @author ups
+ */
+public class FactorizerMetrics implements FactorizerMetricsMBean {
+
+    private static final String OBJECT_NAME = "opn.threading.pleasesync:type=FactorizerMetrics";
+    private static final int BIT_CLASS_WIDTH = 16; // Input bit-lengths per histogram
+    private static final int BIT_CLASSES = 8; // Last class collects all longer inputs
+    private static final int TIME_BUCKETS = 64; // Bucket i counts times in [2^(i-1), 2^i) nanoseconds
+    /**
+     * Singleton pattern: creation
+     */
+    private static final FactorizerMetrics instance = new FactorizerMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+        } catch (JMException exn) {
+            System.err.println("Could not register factorizer metrics: " + exn);
+        }
+        int dumpSeconds = Integer.getInteger("factorizer.metrics.dumpSeconds", 0);
+        if (dumpSeconds > 0) instance.startDump(dumpSeconds);
+    }
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong lockAcquisitions = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    private final AtomicLongArray computeCounts = new AtomicLongArray(BIT_CLASSES * TIME_BUCKETS);
+    private final AtomicLongArray computeNanos = new AtomicLongArray(BIT_CLASSES);
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
+    private volatile IntSupplier cacheSize = () -> 0;
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    private FactorizerMetrics() {
+    }
+
+    /**
+     * Singleton pattern: access
+     */
+    static FactorizerMetrics get() {
+        return instance;
+    }
+
+    //
+    // Recording, called on the hot paths
+    //
+
+    void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * @param waitNanos time spent waiting to acquire the Factorizer cache lock
+     */
+    void recordLockWait(long waitNanos) {
+        lockAcquisitions.incrementAndGet();
+        lockWaitNanos.addAndGet(waitNanos);
+    }
+
+    /**
+     * @param bitLength bit-length of the number that was factorized
+     * @param nanos     time taken to compute the factorization
+     */
+    void recordCompute(int bitLength, long nanos) {
+        int bitClass = Math.min(bitLength / BIT_CLASS_WIDTH, BIT_CLASSES - 1);
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+        computeCounts.incrementAndGet(bitClass * TIME_BUCKETS + Math.min(bucket, TIME_BUCKETS - 1));
+        computeNanos.addAndGet(bitClass, nanos);
+    }
+
+    void batchStarted() {
+        inFlightBatches.incrementAndGet();
+    }
+
+    void batchFinished() {
+        inFlightBatches.decrementAndGet();
+    }
+
+    /**
+     * Live values are read through suppliers, so they cost nothing until queried
+     */
+    void setCacheSize(IntSupplier cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    //
+    // MBean interface
+    //
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public int getCacheSize() {
+        return cacheSize.getAsInt();
+    }
+
+    @Override
+    public long getLockAcquisitions() {
+        return lockAcquisitions.get();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaitNanos.get();
+    }
+
+    @Override
+    public long getComputeCount() {
+        long count = 0;
+        for (int i = 0; i < computeCounts.length(); i++) count += computeCounts.get(i);
+        return count;
+    }
+
+    @Override
+    public long getComputeNanos() {
+        long nanos = 0;
+        for (int i = 0; i < BIT_CLASSES; i++) nanos += computeNanos.get(i);
+        return nanos;
+    }
+
+    @Override
+    public String[] getComputeTimeHistograms() {
+        List<String> lines = new ArrayList<>();
+        for (int bitClass = 0; bitClass < BIT_CLASSES; bitClass++) {
+            long[] counts = new long[TIME_BUCKETS];
+            long total = 0;
+            for (int bucket = 0; bucket < TIME_BUCKETS; bucket++) {
+                counts[bucket] = computeCounts.get(bitClass * TIME_BUCKETS + bucket);
+                total += counts[bucket];
+            }
+            if (total == 0) continue;
+            String bits = bitClass == BIT_CLASSES - 1
+                    ? ">=" + bitClass * BIT_CLASS_WIDTH
+                    : bitClass * BIT_CLASS_WIDTH + "-" + ((bitClass + 1) * BIT_CLASS_WIDTH - 1);
+            lines.add(String.format("bits %s: n=%d mean=%.3fms p50<=%.3fms p99<=%.3fms max<=%.3fms", bits, total,
+                    computeNanos.get(bitClass) / 1e6 / total, percentile(counts, total, 0.5),
+                    percentile(counts, total, 0.99), percentile(counts, total, 1.0)));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * @return upper bound in milliseconds of the bucket containing the given fraction of the counts
+     */
+    private static double percentile(long[] counts, long total, double fraction) {
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= Math.ceil(total * fraction)) return Math.pow(2, bucket) / 1e6;
+        }
+        return Math.pow(2, counts.length - 1) / 1e6;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public int getInFlightBatches() {
+        return inFlightBatches.get();
+    }
+
+    @Override
+    public void reset() {
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        lockAcquisitions.set(0);
+        lockWaitNanos.set(0);
+        for (int i = 0; i < computeCounts.length(); i++) computeCounts.set(i, 0);
+        for (int i = 0; i < BIT_CLASSES; i++) computeNanos.set(i, 0);
+    }
+
+    //
+    // Periodic text dump
+    //
+
+    /**
+     * Print the metrics to the console at a fixed rate, from a daemon thread
+     *
+     * @param periodSeconds seconds between dumps
+     */
+    void startDump(int periodSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "factorizer-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> System.out.println(this), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Factorizer: cache hits=%d misses=%d size=%d, lock waits=%d total=%.3fms, queue depth=%d, in-flight batches=%d",
+                getCacheHits(), getCacheMisses(), getCacheSize(), getLockAcquisitions(), getLockWaitNanos() / 1e6,
+                getQueueDepth(), getInFlightBatches()));
+        for (String line : getComputeTimeHistograms()) text.append("\n  ").append(line);
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,38 @@
+package opn.threading.pleasesync;
+
+/**
+ * JMX management interface for the factorization metrics
+ *
+ * @author ups
+ */
+public interface FactorizerMetricsMBean {
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    int getCacheSize();
+
+    long getLockAcquisitions();
+
+    long getLockWaitNanos();
+
+    long getComputeCount();
+
+    long getComputeNanos();
+
+    /**
+     * @return one summary line per input bit-length class that has seen any computations
+     */
+    String[] getComputeTimeHistograms();
+
+    int getQueueDepth();
+
+    int getInFlightBatches();
+
+    /**
+     * Reset all counters and histograms (the cache size, queue depth and in-flight batches are live values)
+     */
+    void reset();
+
+}
@@ -0,0 +1,97 @@
+package opn.threading.pleasesync;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram in the style of HdrHistogram: values below 2^SUB_BUCKET_BITS are
+ * counted exactly, larger values in buckets whose width doubles with every power of two, so every
+ * value is recorded with a relative error below 2^-SUB_BUCKET_BITS (under 1%) across the whole
+ * range of long.  Recording is lock-free and does not allocate.
+ *
+ * @author ups
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one value, negative values are recorded as zero
+     */
+    void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long seen;
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+            // Retry until the maximum is at least the value
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long count() {
+        return total.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if none
+     */
+    double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return the largest value recorded, exactly
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile to look up, between 0 and 100
+     * @return an upper bound of the given percentile of the recorded values, 0 if none
+     */
+    long percentile(double percentile) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueIn(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Bucket of a value: exact below SUB_BUCKETS, otherwise SUB_BUCKETS buckets per power of two
+     */
+    private static int indexOf(long value) {
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        if (highestBit < SUB_BUCKET_BITS) return (int) value;
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Inverse of indexOf: the largest value counted in the bucket
+     */
+    private static long highestValueIn(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,158 @@
+package opn.threading.pleasesync;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless driver for load testing MainController: replays an open-loop arrival pattern of
+ * factorization requests against the controller and reports end-to-end latency percentiles and
+ * throughput.  Every request gets its own result sink, and therefore its own session, so that no
+ * request is cancelled by a later one.
+ *
+ * Latency is measured from the time a request was scheduled to arrive (not from when it was
+ * actually submitted), so a stalled submitter does not hide queueing delay.
+ *
+ * Usage: LoadGenerator [key=value]...
+ *   pattern=poisson|uniform|burst  arrival pattern (default poisson)
+ *   rate=N                         mean requests per second for poisson and uniform (default 10)
+ *   burst=N                        requests per burst for burst (default 20)
+ *   burstMillis=N                  milliseconds between bursts for burst, 0 for a single burst (default 1000)
+ *   seconds=N                      duration of the arrival phase (default 10)
+ *   hard=F                         fraction of requests using hard numbers (default 0.1)
+ *   easyDigits=N, hardDigits=N     size of easy and hard numbers (default 6 and 13)
+ *   seed=N                         random seed (default 42)
+ *
+ * @author ups
+ */
+public class LoadGenerator {
+
+    private static final long DRAIN_TIMEOUT_SECONDS = 60; // wait for outstanding requests after arrivals end
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+
+    public static void main(String argv[]) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : argv) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        new LoadGenerator().run(options);
+    }
+
+    /**
+     * Result sink for a single request: records the latency when the statistics arrive
+     */
+    private class RequestSink implements FactorizationSink {
+        private final long scheduledNanos; // Intended arrival time of the request
+        private final CountDownLatch outstanding;
+
+        private RequestSink(long scheduledNanos, CountDownLatch outstanding) {
+            this.scheduledNanos = scheduledNanos;
+            this.outstanding = outstanding;
+        }
+
+        @Override
+        public void displayFactorization(long generation, BigInteger number, List<BigInteger> result) {
+            // Only the completion of the whole request is measured
+        }
+
+        @Override
+        public void displayStatistics(long generation, long millis, int n_new_factors) {
+            latencies.record(System.nanoTime() - scheduledNanos);
+            completed.incrementAndGet();
+            outstanding.countDown();
+        }
+
+        @Override
+        public void displayError(String message) {
+            errors.incrementAndGet();
+            outstanding.countDown();
+        }
+    }
+
+    private void run(Map<String, String> options) throws InterruptedException {
+        String pattern = options.getOrDefault("pattern", "poisson");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "10"));
+        int burst = Integer.parseInt(options.getOrDefault("burst", "20"));
+        long burstNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.getOrDefault("burstMillis", "1000")));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("seconds", "10")));
+        double hardFraction = Double.parseDouble(options.getOrDefault("hard", "0.1"));
+        BigInteger easyBase = BigInteger.TEN.pow(Integer.parseInt(options.getOrDefault("easyDigits", "6")) - 1);
+        BigInteger hardBase = BigInteger.TEN.pow(Integer.parseInt(options.getOrDefault("hardDigits", "13")) - 1);
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        if (!(rate > 0 && rate <= 1e9)) // Gaps below a nanosecond would never advance the schedule
+            throw new IllegalArgumentException("Expected 0 < rate <= 1e9, got: " + rate);
+        if (burst < 1) throw new IllegalArgumentException("Expected burst >= 1, got: " + burst);
+        if (burstNanos < 0) throw new IllegalArgumentException("Expected burstMillis >= 0, got: " + options.get("burstMillis"));
+
+        // Arrival schedule, in nanoseconds from the start
+        long[] schedule = schedule(pattern, rate, burst, burstNanos, durationNanos, random);
+        System.out.println("Replaying " + schedule.length + " requests (" + pattern + ") over " + durationNanos / 1e9 + "s, hard fraction " + hardFraction);
+
+        MainController controller = MainController.get();
+        CountDownLatch outstanding = new CountDownLatch(schedule.length);
+        long start = System.nanoTime();
+        for (long offset : schedule) {
+            // Pick the number before waiting, so that choosing it is not part of the measured latency
+            BigInteger base = random.nextDouble() < hardFraction ? hardBase : easyBase;
+            BigInteger number = base.add(BigInteger.valueOf((long) (random.nextDouble() * 8 * base.doubleValue())));
+            long scheduled = start + offset;
+            long delay;
+            while ((delay = scheduled - System.nanoTime()) > 0) LockSupport.parkNanos(delay);
+            controller.factorize(number.toString(), new RequestSink(scheduled, outstanding));
+        }
+        boolean drained = outstanding.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format("Completed %d of %d requests in %.2fs (%d errors%s), throughput %.2f requests/s",
+                completed.get(), schedule.length, seconds, errors.get(), drained ? "" : ", timed out waiting for the rest",
+                completed.get() / seconds));
+        System.out.println(String.format("Latency ms: mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                latencies.mean() / 1e6, latencies.percentile(50) / 1e6, latencies.percentile(99) / 1e6,
+                latencies.percentile(99.9) / 1e6, latencies.max() / 1e6));
+        System.out.println(FactorizerMetrics.get());
+    }
+
+    /**
+     * Compute the intended arrival times of all requests, independently of how fast they are served (open loop)
+     */
+    private static long[] schedule(String pattern, double rate, int burst, long burstNanos, long durationNanos, Random random) {
+        long[] times = new long[16];
+        int n = 0;
+        long t = 0;
+        while (true) {
+            switch (pattern) {
+                case "poisson": // Exponentially distributed gaps
+                    t += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+                    break;
+                case "uniform": // Fixed gaps
+                    t += (long) (1e9 / rate);
+                    break;
+                case "burst": // Groups of simultaneous requests
+                    if (n > 0 && n % burst == 0) {
+                        if (burstNanos == 0) return Arrays.copyOf(times, n); // A single burst
+                        t += burstNanos;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown arrival pattern: " + pattern);
+            }
+            if (t >= durationNanos) break;
+            if (n == times.length) times = Arrays.copyOf(times, 2 * n);
+            times[n++] = t;
+        }
+        return Arrays.copyOf(times, n);
+    }
+
+}
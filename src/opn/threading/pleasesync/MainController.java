@@ -1,12 +1,18 @@
 package opn.threading.pleasesync;
 
-import javax.swing.*;
 import java.math.BigInteger;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.IntStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The controller of the application, containing the logic
@@ -28,6 +34,31 @@ class MainController {
      * Set gathering all prime factors seen so far, used for displaying statistics
      */
     private final Set<BigInteger> allFactors = new HashSet<>();
+    /**
+     * Worker threads shared by all batches, daemon so they do not keep the application alive.
+     * One task per number on a single shared queue balances the load dynamically.
+     */
+    private final ThreadPoolExecutor workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+        Thread t = new Thread(task, "factorizer");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Instrumentation of queue depth and in-flight batches
+     */
+    private final FactorizerMetrics metrics = FactorizerMetrics.get();
+    /**
+     * Source of request generations, increasing over all sessions
+     */
+    private final AtomicLong generations = new AtomicLong();
+    /**
+     * Latest unfinished batch requested by each session (result sink), always accessed within code that synchronizes on the map
+     */
+    private final Map<FactorizationSink, Batch> sessions = new HashMap<>();
+
+    private MainController() {
+        metrics.setQueueDepth(() -> workers.getQueue().size());
+    }
 
     /**
      * Singleton pattern: access
@@ -38,45 +69,136 @@ class MainController {
     }
 
     /**
-     * Perform a factorization, request the GUI to display
+     * Perform a factorization, request the sink (normally the GUI) to display.
+     * Latest request wins: any batch still running for the same sink is cancelled.
+     *
+     * @return the generation the results will be tagged with, 0 if the request was rejected
      */
     @SuppressWarnings("WeakerAccess")
-    public void factorize(String number_text, final MainGUI gui) {
-        new Thread(() -> {
-            try {
-                final BigInteger number = new BigInteger(number_text);
-                // Count the current number of factors
-                int current_n_factors = allFactors.size();
-                // Time the operations: begin
-                Date startTime = new Date();
-                // Compute and display the N_RESULTS factorizations
+    public long factorize(String number_text, final FactorizationSink gui) {
+        final BigInteger number;
+        try {
+            number = new BigInteger(number_text);
+        } catch (NumberFormatException exn) {
+            gui.displayError("Illegal number: " + exn);
+            return 0;
+        }
+        Batch batch, previous;
+        synchronized (sessions) {
+            previous = sessions.get(gui);
+            batch = new Batch(generations.incrementAndGet(), number, gui);
+            sessions.put(gui, batch);
+        }
+        if (previous != null) previous.cancel();
+        batch.start();
+        return batch.generation;
+    }
 
-                IntStream.range(0, N_RESULTS).parallel().forEach(i -> {
-                    BigInteger n = number.add(BigInteger.valueOf(i));
-                    List<BigInteger> result = Factorizer.primeFactors(n);
-                    synchronized (allFactors) {
-                        allFactors.addAll(result);
-                    }
-                    gui.displayFactorization(n, result);
-                });
+    /**
+     * The N_RESULTS factorizations requested by one click, tagged with the generation of the request
+     * (increasing over all requests).  Results are streamed to the sink as they complete, together with
+     * the generation, unless the batch has been superseded by a newer request from the same sink, in
+     * which case queued work is dropped and running work is interrupted.
+     */
+    private class Batch {
+        private final long generation; // Newer requests have higher generations
+        private final BigInteger number; // First number to factorize
+        private final FactorizationSink gui; // Where to deliver results
+        private final List<Future<?>> tasks = new ArrayList<>(); // Guarded by this
+        private boolean cancelled = false; // Guarded by this, no results delivered once set
+        private int remaining = N_RESULTS; // Guarded by this, factorizations not yet delivered
+        private int current_n_factors; // Number of factors seen when the batch started
+        private long startTime; // Time the operations: begin
+
+        private Batch(long generation, BigInteger number, FactorizationSink gui) {
+            this.generation = generation;
+            this.number = number;
+            this.gui = gui;
+        }
+
+        /**
+         * Start the batch: estimating costs is left to a worker, so the caller (normally the
+         * Swing event thread) returns immediately
+         */
+        private synchronized void start() {
+            if (cancelled) return;
+            synchronized (allFactors) {
+                current_n_factors = allFactors.size();
+            }
+            startTime = System.nanoTime();
+            metrics.batchStarted();
+            tasks.add(workers.submit(this::schedule));
+        }
+
+        /**
+         * Submit all factorizations of the batch to the workers, executed by a worker thread.
+         * Hardest first: every idle worker takes the next task from the shared queue, so the
+         * cheap numbers fill in around the expensive ones and the batch finishes close to the
+         * time taken by the single hardest number
+         */
+        private void schedule() {
+            List<BigInteger> numbers = new ArrayList<>(N_RESULTS);
+            Map<BigInteger, Double> costs = new HashMap<>();
+            for (int i = 0; i < N_RESULTS; i++) {
+                if (Thread.currentThread().isInterrupted()) return; // Superseded while estimating
+                BigInteger n = number.add(BigInteger.valueOf(i));
+                numbers.add(n);
+                costs.put(n, Factorizer.estimateCost(n));
+            }
+            numbers.sort(Comparator.comparing(costs::get, Comparator.reverseOrder()));
+            synchronized (this) {
+                if (cancelled) return;
+                for (BigInteger n : numbers)
+                    tasks.add(workers.submit(() -> compute(n)));
+            }
+        }
+
+        /**
+         * Cancel the batch: queued factorizations never start, running ones are interrupted
+         */
+        private synchronized void cancel() {
+            if (cancelled || remaining == 0) return;
+            cancelled = true;
+            if (!tasks.isEmpty()) metrics.batchFinished(); // Only counted once started
+            tasks.forEach(task -> task.cancel(true));
+        }
 
-                /*
-                for (int i = 0; i < N_RESULTS; i++) {
-                    List<BigInteger> result = Factorizer.primeFactors(number);
-                    allFactors.addAll(result);
-                    gui.displayFactorization(number, result);
-                    number = number.add(BigInteger.ONE);
-                }*/
+        /**
+         * Compute one factorization and deliver it, executed by a worker thread
+         */
+        private void compute(BigInteger n) {
+            List<BigInteger> result;
+            try {
+                result = Factorizer.primeFactors(n);
+            } catch (CancellationException exn) {
+                return; // Interrupted because the batch was superseded
+            }
+            synchronized (allFactors) {
+                allFactors.addAll(result);
+            }
+            deliver(n, result);
+        }
 
-                // Time the operations: end
-                Date endTime = new Date();
-                // Display statistics
-                long millis = endTime.getTime() - startTime.getTime();
-                gui.displayStatistics(millis, allFactors.size() - current_n_factors);
-            } catch (NumberFormatException exn) {
-                JOptionPane.showMessageDialog(null, "Illegal number: " + exn);
+        /**
+         * Display a result, and the statistics once the last result is in, if this batch is still current
+         */
+        private synchronized void deliver(BigInteger n, List<BigInteger> result) {
+            if (cancelled) return;
+            gui.displayFactorization(generation, n, result);
+            if (--remaining > 0) return;
+            metrics.batchFinished();
+            // Time the operations: end
+            long millis = (System.nanoTime() - startTime) / 1000000;
+            // Display statistics
+            int n_new_factors;
+            synchronized (allFactors) {
+                n_new_factors = allFactors.size() - current_n_factors;
+            }
+            gui.displayStatistics(generation, millis, n_new_factors);
+            synchronized (sessions) {
+                sessions.remove(gui, this); // Nothing left to cancel, forget the session
             }
-        }).start();
+        }
     }
 
 }
@@ -12,10 +12,11 @@ import java.util.List;
  * @author ups
  */
 
-public class MainGUI {
+public class MainGUI implements FactorizationSink {
 
     private JFrame frame;
     private JTextArea textArea;
+    private volatile long currentGeneration = 0; // Generation of the latest request, older results are dropped
 
     /**
      * Create the application.
@@ -74,7 +75,10 @@ public class MainGUI {
         scrollPane.setViewportView(textArea);
 
         JButton btnFactorize = new JButton("Factorize!");
-        btnFactorize.addActionListener(e -> MainController.get().factorize(textField.getText(), MainGUI.this));
+        btnFactorize.addActionListener(e -> {
+            long generation = MainController.get().factorize(textField.getText(), MainGUI.this);
+            if (generation > currentGeneration) currentGeneration = generation;
+        });
         btnFactorize.setBounds(308, 65, 117, 29);
         frame.getContentPane().add(btnFactorize);
 
@@ -124,4 +128,30 @@ public class MainGUI {
         );
     }
 
+    /**
+     * Display a result from the controller, unless it belongs to a request older than the latest one
+     */
+    @Override
+    public void displayFactorization(long generation, BigInteger number, List<BigInteger> result) {
+        if (generation >= currentGeneration) displayFactorization(number, result);
+    }
+
+    /**
+     * Display statistics from the controller, unless they belong to a request older than the latest one
+     */
+    @Override
+    public void displayStatistics(long generation, long millis, int n_new_factors) {
+        if (generation >= currentGeneration) displayStatistics(millis, n_new_factors);
+    }
+
+    /**
+     * Utility method for reporting a request that could not be processed
+     *
+     * @param message description of the problem
+     */
+    @Override
+    public void displayError(String message) {
+        EventQueue.invokeLater(() -> JOptionPane.showMessageDialog(frame, message));
+    }
+
 }
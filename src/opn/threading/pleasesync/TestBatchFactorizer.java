@@ -0,0 +1,119 @@
+package opn.threading.pleasesync;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Various testcases for the batch factorizer, comparing its results with those of per-number
+ * trial division (what primeFactors(BigInteger) computes on a cache miss, called directly since
+ * the batch caches its results), and its cost per number with that of primeFactors(BigInteger)
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public class TestBatchFactorizer {
+
+    private static final BigInteger P = BigInteger.valueOf(262139); // Primes between 2^16 and 2^32,
+    private static final BigInteger Q = BigInteger.valueOf(262147); // pairwise products above 2^32
+    private static final BigInteger R = BigInteger.valueOf(524287);
+
+    /**
+     * Factorize the numbers as one batch and compare every result with per-number trial division
+     */
+    private static void check(String name, BigInteger... numbers) {
+        System.out.println("***" + name + ":");
+        Map<BigInteger, List<BigInteger>> results = Factorizer.primeFactors(Arrays.asList(numbers));
+        int mismatches = 0;
+        for (BigInteger n : numbers) {
+            List<BigInteger> expected = new ArrayList<>();
+            Factorizer.trialDivision(n, BigInteger.valueOf(2), expected);
+            List<BigInteger> actual = new ArrayList<>(results.get(n));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            if (!actual.equals(expected)) {
+                System.out.println("MISMATCH " + n + ": batch " + actual + ", expected " + expected);
+                mismatches++;
+            }
+        }
+        System.out.println(numbers.length + " numbers, " + results.size() + " distinct, mismatches: " + mismatches);
+    }
+
+    private static BigInteger product(long small, BigInteger... factors) {
+        BigInteger result = BigInteger.valueOf(small);
+        for (BigInteger factor : factors) result = result.multiply(factor);
+        return result;
+    }
+
+    public static void testSharedFactors() {
+        // Cofactors P*Q, P*R and Q*R each share a prime with the others and are split by the batch GCD
+        check("Shared factors", product(3, P, Q), product(5, P, R), product(7, Q, R), product(1, P, Q, R));
+    }
+
+    public static void testEqualCofactors() {
+        // Equal cofactors divide each other completely, so the batch GCD cannot split them
+        check("Equal cofactors", product(2, P, Q), product(3, P, Q), product(1, P, Q),
+                product(2, R.multiply(R)), product(6, R.multiply(R)));
+    }
+
+    public static void testSmallPieces() {
+        // Cofactors below 2^32 without factors below 2^16 are prime, and skip the batch GCD
+        check("Pieces below 2^32", BigInteger.valueOf(65537), product(12, BigInteger.valueOf(65537)),
+                BigInteger.valueOf(4294967291L), product(6, BigInteger.valueOf(4294967291L)), product(5, P));
+    }
+
+    public static void testPrimePowers() {
+        // Repeated small primes are found once by the remainder tree and divided out with multiplicity
+        check("Small prime powers", BigInteger.valueOf(2).pow(40), BigInteger.valueOf(3).pow(20).multiply(BigInteger.valueOf(5).pow(7)),
+                BigInteger.valueOf(65521).pow(3), product(1, BigInteger.valueOf(65521).pow(2), P));
+    }
+
+    public static void testTrivial() {
+        // Numbers up to 1 and duplicates are handled outside the trees
+        check("Trivial and duplicates", BigInteger.valueOf(-12), BigInteger.ZERO, BigInteger.ONE,
+                BigInteger.valueOf(2), BigInteger.valueOf(2), product(4, P), product(4, P));
+    }
+
+    /**
+     * Compare the cost per number of the batch with that of one primeFactors(BigInteger) call per
+     * number, on random numbers of the given size (fresh numbers for every measurement, so that
+     * neither is served from the cache)
+     */
+    public static void testCostPerNumber(int bits, int maxBatch) {
+        System.out.println("***Cost per number (" + bits + "-bit numbers):");
+        Random random = new Random(42);
+        Factorizer.primeFactors(randomNumbers(random, bits, maxBatch)); // Warm up
+        System.out.println(String.format("%8s %14s %14s %8s", "batch", "single ms/n", "batch ms/n", "ratio"));
+        for (int size = 1; size <= maxBatch; size *= 2) {
+            List<BigInteger> singles = randomNumbers(random, bits, size);
+            long start = System.nanoTime();
+            for (BigInteger n : singles) Factorizer.primeFactors(n);
+            double singleMillis = (System.nanoTime() - start) / 1e6 / size;
+            List<BigInteger> batch = randomNumbers(random, bits, size);
+            start = System.nanoTime();
+            Factorizer.primeFactors(batch);
+            double batchMillis = (System.nanoTime() - start) / 1e6 / size;
+            System.out.println(String.format("%8d %14.3f %14.3f %8.2f", size, singleMillis, batchMillis, singleMillis / batchMillis));
+        }
+    }
+
+    private static List<BigInteger> randomNumbers(Random random, int bits, int count) {
+        List<BigInteger> numbers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) numbers.add(new BigInteger(bits, random).setBit(bits - 1));
+        return numbers;
+    }
+
+    public static void main(String argv[]) {
+        testSharedFactors();
+        testEqualCofactors();
+        testSmallPieces();
+        testPrimePowers();
+        testTrivial();
+        testCostPerNumber(40, 64);
+    }
+
+}
@@ -0,0 +1,89 @@
+package opn.threading.pleasesync;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Various testcases for the compact factorization, in particular the varint encoding used
+ * when a prime does not fit in a long
+ *
+ * @author ups
+ */
+@SuppressWarnings("WeakerAccess")
+public class TestFactorization {
+
+    private static final Random RANDOM = new Random(42);
+
+    /**
+     * Check that the factorization of the factors gives them back in increasing order, with the right size
+     */
+    private static void roundTrip(String name, List<BigInteger> factors) {
+        Factorization f = Factorization.of(factors);
+        List<BigInteger> expected = new ArrayList<>(factors);
+        Collections.sort(expected);
+        List<BigInteger> actual = new ArrayList<>(f.asList());
+        boolean ok = actual.equals(expected) && f.size() == expected.size() && f.asList().size() == expected.size();
+        System.out.println(name + ": " + (ok ? "OK" : "MISMATCH " + actual + ", expected " + expected));
+    }
+
+    private static List<BigInteger> repeat(BigInteger prime, int exponent) {
+        return Collections.nCopies(exponent, prime);
+    }
+
+    private static List<BigInteger> concat(List<BigInteger> first, List<BigInteger> second) {
+        List<BigInteger> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    public static void testRoundTrip() {
+        System.out.println("***Round trip:");
+        BigInteger big = BigInteger.probablePrime(64, RANDOM); // Does not fit in a long
+        BigInteger largest = BigInteger.valueOf(Long.MAX_VALUE); // Fits in a long, not prime but stored the same way
+        BigInteger huge = BigInteger.probablePrime(1100, RANDOM); // Magnitude longer than 127 bytes: two-byte length
+        roundTrip("empty", Collections.emptyList());
+        roundTrip("packed", Arrays.asList(BigInteger.valueOf(7), BigInteger.valueOf(2), BigInteger.valueOf(7), largest));
+        roundTrip("varint, one prime", Collections.singletonList(big));
+        roundTrip("varint, mixed sizes", Arrays.asList(big, BigInteger.valueOf(3), largest, BigInteger.valueOf(3)));
+        roundTrip("varint, exponent above 127", concat(repeat(BigInteger.valueOf(2), 300), Collections.singletonList(big)));
+        roundTrip("varint, long magnitude", Arrays.asList(huge, big, huge, BigInteger.valueOf(5)));
+    }
+
+    public static void testEquality() {
+        System.out.println("***Equality:");
+        BigInteger big = BigInteger.probablePrime(100, RANDOM);
+        List<BigInteger> factors = Arrays.asList(BigInteger.valueOf(2), big, BigInteger.valueOf(2), BigInteger.valueOf(11));
+        List<BigInteger> reversed = new ArrayList<>(factors);
+        Collections.reverse(reversed);
+        Factorization f = Factorization.of(factors), g = Factorization.of(reversed);
+        System.out.println("Any order equal: " + (f.equals(g) && f.hashCode() == g.hashCode()));
+        System.out.println("Different exponents differ: " + !f.equals(Factorization.of(concat(factors, Collections.singletonList(big)))));
+        System.out.println("Packed and varint differ: " + !f.equals(Factorization.of(Arrays.asList(BigInteger.valueOf(2), BigInteger.valueOf(2)))));
+        System.out.println("List equal: " + f.asList().equals(Arrays.asList(BigInteger.valueOf(2), BigInteger.valueOf(2), BigInteger.valueOf(11), big)));
+        System.out.println("toString: " + f);
+    }
+
+    public static void testBounds() {
+        System.out.println("***Bounds:");
+        List<BigInteger> list = Factorization.of(Arrays.asList(BigInteger.valueOf(2), BigInteger.probablePrime(80, RANDOM))).asList();
+        for (int index : new int[]{-1, 2}) {
+            try {
+                list.get(index);
+                System.out.println("get(" + index + ") did not fail");
+            } catch (IndexOutOfBoundsException exn) {
+                System.out.println("get(" + index + ") failed as expected: " + exn.getMessage());
+            }
+        }
+    }
+
+    public static void main(String argv[]) {
+        testRoundTrip();
+        testEquality();
+        testBounds();
+    }
+
+}
@@ -0,0 +1,284 @@
+package opn.threading.scaling;
+
+import open.threading.util.Guard;
+import open.threading.util.KeyedHandoff;
+import open.threading.util.ParanoidCollections;
+import open.threading.util.ThreadMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the synchronization workloads from SyncProblemsMain, DeadlockingMain and
+ * ExplicitSyncExamples with a configurable number of platform or virtual threads,
+ * and reports throughput and speedup for each thread count.
+ *
+ * Usage: ScalingMain [platform|virtual] [thread counts, e.g. 1,2,4,8] [problem size]
+ *
+ * Platform threads synchronize using monitors (as in the original examples), virtual
+ * threads use ReentrantLock/Condition instead so that blocking does not pin carriers.
+ *
+ * @author ups
+ */
+public class ScalingMain {
+
+    private static final int DEFAULT_SIZE = 100000; // total number of operations per run
+    private static final int LIST_LENGTH = 1000; // length of the list traversed in the iteration workload
+    private static final int WARMUP_RUNS = 2; // untimed runs before measuring each workload
+
+    /**
+     * A workload run with a given number of threads, returning the number of operations performed
+     */
+    private interface Workload {
+        long run(ThreadMode mode, int n_threads, int size) throws InterruptedException;
+    }
+
+    /**
+     * A named workload, and the smallest number of threads it can run with
+     */
+    private static class Benchmark {
+        private final String name;
+        private final int minThreads;
+        private final Workload workload;
+
+        private Benchmark(String name, int minThreads, Workload workload) {
+            this.name = name;
+            this.minThreads = minThreads;
+            this.workload = workload;
+        }
+    }
+
+    /**
+     * Body of one worker thread, given its index among all workers
+     */
+    private interface Worker {
+        void run(int index) throws InterruptedException;
+    }
+
+    public static void main(String argv[]) throws InterruptedException {
+        ThreadMode mode = argv.length > 0 ? ThreadMode.valueOf(argv[0].toUpperCase()) : ThreadMode.PLATFORM;
+        if (!mode.isSupported()) {
+            System.out.println("Thread mode " + mode + " is not supported by this JVM (" + System.getProperty("java.version") + ")");
+            return;
+        }
+        int[] counts = argv.length > 1 ? parseCounts(argv[1]) : defaultCounts(mode);
+        int size = argv.length > 2 ? Integer.parseInt(argv[2]) : DEFAULT_SIZE;
+
+        List<Benchmark> benchmarks = Arrays.asList(
+                new Benchmark("counting", 1, ScalingMain::counting),
+                new Benchmark("modification", 1, ScalingMain::modification),
+                new Benchmark("iteration", 1, ScalingMain::iteration),
+                new Benchmark("producer-consumer", 2, ScalingMain::producerConsumer), // Needs a producer and a consumer
+                new Benchmark("keyed-handoff", 2, ScalingMain::keyedHandoff));
+
+        for (Benchmark benchmark : benchmarks) {
+            System.out.println("=== " + benchmark.name + " (" + mode + ", size " + size + ") ===");
+            System.out.println(String.format("%8s %10s %14s %8s", "threads", "millis", "ops/s", "speedup"));
+            boolean warm = false;
+            double baseline = 0;
+            for (int n_threads : counts) {
+                if (n_threads < benchmark.minThreads) {
+                    System.out.println(String.format("%8d skipped: needs at least %d threads", n_threads, benchmark.minThreads));
+                    continue;
+                }
+                long start, ops;
+                try {
+                    if (!warm) {
+                        for (int i = 0; i < WARMUP_RUNS; i++) benchmark.workload.run(mode, n_threads, size);
+                        warm = true;
+                    }
+                    start = System.nanoTime();
+                    ops = benchmark.workload.run(mode, n_threads, size);
+                } catch (IllegalStateException exn) {
+                    System.out.println(String.format("%8d FAILED: %s", n_threads, exn.getMessage()));
+                    continue;
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double throughput = ops / seconds;
+                if (baseline == 0) baseline = throughput;
+                System.out.println(String.format("%8d %10.1f %14.0f %8.2f", n_threads, seconds * 1000, throughput, throughput / baseline));
+            }
+        }
+    }
+
+    /**
+     * Parse a comma-separated list of thread counts
+     */
+    private static int[] parseCounts(String text) {
+        String[] parts = text.split(",");
+        int[] counts = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) counts[i] = Integer.parseInt(parts[i].trim());
+        return counts;
+    }
+
+    /**
+     * Powers of two up to twice the number of cores for platform threads, powers of ten up to 10000 for virtual threads
+     */
+    private static int[] defaultCounts(ThreadMode mode) {
+        List<Integer> counts = new ArrayList<>();
+        if (mode == ThreadMode.PLATFORM) {
+            int max = 2 * Runtime.getRuntime().availableProcessors();
+            for (int n = 1; n <= max; n *= 2) counts.add(n);
+        } else {
+            for (int n = 1; n <= 10000; n *= 10) counts.add(n);
+        }
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Helper method: start the given number of threads running the worker and wait for them to finish
+     */
+    private static void finish(ThreadMode mode, int n_threads, Worker worker) throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(n_threads);
+        for (int i = 0; i < n_threads; i++) {
+            int index = i;
+            threads.add(mode.newThread(() -> {
+                try {
+                    worker.run(index);
+                } catch (InterruptedException | RuntimeException | Error exn) {
+                    failure.compareAndSet(null, exn);
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        if (failure.get() != null) throw new IllegalStateException("worker failed: " + failure.get(), failure.get());
+    }
+
+    ////////////////////////////////////////////
+    // SyncProblemsMain, problem 1:
+    // Even threads count up, odd threads count down
+    ////////////////////////////////////////////
+
+    private static long counting(ThreadMode mode, int n_threads, int size) throws InterruptedException {
+        Guard guard = mode.newGuard();
+        int[] value = {0}; // shared between threads, only accessed within the guard
+        int per_thread = Math.max(1, size / n_threads);
+        finish(mode, n_threads, index -> {
+            int delta = index % 2 == 0 ? 1 : -1;
+            for (int i = 0; i < per_thread; i++) guard.run(() -> value[0] += delta);
+        });
+        int expected = per_thread * (n_threads % 2);
+        if (value[0] != expected) throw new IllegalStateException("value is " + value[0] + ", expected " + expected);
+        return (long) per_thread * n_threads;
+    }
+
+    ////////////////////////////////////////////
+    // SyncProblemsMain, problem 2:
+    // Every thread alternates between adding a new number and removing one,
+    // so the mix of operations is the same for every thread count
+    ////////////////////////////////////////////
+
+    private static long modification(ThreadMode mode, int n_threads, int size) throws InterruptedException {
+        Guard guard = mode.newGuard();
+        List<Integer> numbers = ParanoidCollections.paranoidList(new LinkedList<>());
+        int per_thread = Math.max(1, size / n_threads);
+        finish(mode, n_threads, index -> {
+            for (int i = 0; i < per_thread; i++) {
+                int number = i;
+                if (i % 2 == 0)
+                    guard.run(() -> {
+                        if (!numbers.contains(number)) numbers.add(number);
+                    });
+                else
+                    guard.run(() -> {
+                        if (numbers.size() > 0) numbers.remove(0);
+                    });
+            }
+        });
+        return (long) per_thread * n_threads;
+    }
+
+    ////////////////////////////////////////////
+    // SyncProblemsMain, problem 3:
+    // Every thread alternates between traversing the list and modifying it in place;
+    // a traversal counts as LIST_LENGTH operations, a modification as 2
+    ////////////////////////////////////////////
+
+    private static long iteration(ThreadMode mode, int n_threads, int size) throws InterruptedException {
+        Guard guard = mode.newGuard();
+        List<Integer> data = ParanoidCollections.paranoidList(new LinkedList<>());
+        for (int i = 0; i < LIST_LENGTH; i++) data.add(i);
+        int rounds = Math.max(1, size / LIST_LENGTH / n_threads);
+        finish(mode, n_threads, index -> {
+            for (int r = 0; r < rounds; r++) {
+                guard.run(() -> {
+                    long sum = 0;
+                    for (int i : data) sum += i;
+                    if (sum < 0) throw new IllegalStateException("negative number seen during traversal");
+                });
+                guard.run(() -> {
+                    data.add(0, -1);
+                    data.remove(0);
+                });
+            }
+        });
+        return (long) rounds * n_threads * (LIST_LENGTH + 2);
+    }
+
+    ////////////////////////////////////////////
+    // DeadlockingMain:
+    // Half of the threads produce numbers into a queue, the other half consume them
+    // (needs at least two threads)
+    ////////////////////////////////////////////
+
+    private static long producerConsumer(ThreadMode mode, int n_threads, int size) throws InterruptedException {
+        Guard guard = mode.newGuard();
+        List<Integer> queue = ParanoidCollections.paranoidList(new LinkedList<>());
+        int producers = n_threads / 2;
+        int consumers = n_threads - producers;
+        int per_producer = Math.max(1, size / producers);
+        int total = per_producer * producers;
+        int[] consumed = {0}; // only accessed within the guard
+        finish(mode, n_threads, index -> {
+            if (index < producers) {
+                for (int i = 0; i < per_producer; i++) {
+                    int number = i;
+                    guard.run(() -> {
+                        queue.add(number);
+                        guard.signal();
+                    });
+                }
+            } else {
+                boolean[] done = {false};
+                while (!done[0])
+                    guard.run(() -> {
+                        guard.awaitUntil(() -> queue.size() > 0 || consumed[0] == total);
+                        if (queue.size() == 0) {
+                            done[0] = true;
+                            return;
+                        }
+                        queue.remove(0);
+                        if (++consumed[0] == total) guard.signalAll(); // release the other consumers
+                    });
+            }
+        });
+        return total;
+    }
+
+    ////////////////////////////////////////////
+    // ExplicitSyncExamples, (4):
+    // Half of the threads hand off keys, the other half wait for specific keys
+    // (needs at least two threads)
+    ////////////////////////////////////////////
+
+    private static long keyedHandoff(ThreadMode mode, int n_threads, int size) throws InterruptedException {
+        KeyedHandoff<Integer, Integer> handoff = new KeyedHandoff<>();
+        int producers = n_threads / 2;
+        int consumers = n_threads - producers;
+        finish(mode, n_threads, index -> {
+            if (index < producers) {
+                for (int key = index; key < size; key += producers) handoff.put(key, key);
+            } else {
+                for (int key = index - producers; key < size; key += consumers) handoff.take(key);
+            }
+        });
+        if (handoff.size() != 0) throw new IllegalStateException(handoff.size() + " values left over");
+        return size;
+    }
+
+}
@@ -1,5 +1,7 @@
 package opn.threading.syncexample;
 
+import open.threading.util.KeyedHandoff;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -10,7 +12,7 @@ import java.util.List;
  * (1) Starting threads (thread objects and data streams)
  * (2) Synchronized methods (method-level object locking)
  * (3) Synchronized blocks (fine-grained locking)
- * (4) Thread coordination (wait/notify)
+ * (4) Thread coordination (keyed handoff on per-key conditions)
  *
  * @author ups
  */
@@ -25,8 +27,8 @@ public class ExplicitSyncExamples {
     private final List<Integer> sharedData1 = new ArrayList<>();
     // private member that is only accessed locally and only from synchronized blocks
     private final List<Integer> sharedData2 = new ArrayList<>();
-    // private member that is only accessed locally and only in a synchronized fashion
-    private final List<Integer> sharedData3 = new ArrayList<>();
+    // private member that is only accessed locally and only through its own per-key synchronization
+    private final KeyedHandoff<Integer, Integer> sharedData3 = new KeyedHandoff<>();
 
     //
     // (2) Protect shared data using synchronized methods
@@ -45,8 +47,8 @@ public class ExplicitSyncExamples {
         self.work_using_protected_accessor(10000);
         System.out.println("work_using_synchronized_block");
         self.work_using_synchronized_block(10000);
-        System.out.println("work_using_wait_and_notify");
-        self.work_using_wait_and_notify(10000);
+        System.out.println("work_using_keyed_handoff");
+        self.work_using_keyed_handoff(10000);
     }
 
     // Start one thread, let it work, and (in this case) wait for it to finish
@@ -82,7 +84,7 @@ public class ExplicitSyncExamples {
     }
 
     //
-    // (4) Coordinate threads using wait/notifyAll
+    // (4) Coordinate threads using a keyed handoff (per-key conditions)
     //
 
     // methods in this class and outside this class always use accessor methods
@@ -127,36 +129,25 @@ public class ExplicitSyncExamples {
     // Main method for running
     //
 
-    // working with shared data always done using synchronized blocks
-    public void work_using_wait_and_notify(int max) throws InterruptedException {
+    // consumer waits for one specific value: parked on a per-key condition, woken only when that key arrives
+    public void work_using_keyed_handoff(int max) throws InterruptedException {
         Thread t1 = new Thread(() -> {
             for (int i = 0; i < max; i++)
-                synchronized (sharedData3) {
-                    sharedData3.add(i);
-                    sharedData3.notifyAll();
-                }
+                sharedData3.put(i, i);
         });
         Thread t2 = new Thread(() -> {
-            for (int i = 0; i < max; i++)
-                synchronized (sharedData3) {
-                    int index;
-                    while (true) {
-                        index = sharedData3.indexOf(i);
-                        if (index > -1) break;
-                        try {
-                            sharedData3.wait();
-                        } catch (InterruptedException e) {
-                            throw new Error("Unexpected interruption");
-                        }
-                    }
-                    sharedData3.remove(index);
+            for (int i = 0; i < max; i++) {
+                try {
+                    sharedData3.take(i);
+                } catch (InterruptedException e) {
+                    throw new Error("Unexpected interruption");
                 }
+            }
         });
         t2.start();
         t1.start();
         t1.join();
-        synchronized (sharedData3) {
-            System.out.println("(4) = " + sharedData3.size());
-        }
+        t2.join();
+        System.out.println("(4) = " + sharedData3.size());
     }
 }